@@ -0,0 +1,292 @@
+/**
+ * CompressedShortStack — a 16-bit virtual stack that keeps every frame losslessly
+ * compressed in memory.
+ *
+ * Each frame is stored as left-neighbour deltas (the first pixel of a row is
+ * predicted from the row above), zigzag-mapped and bit-packed in blocks of 64
+ * values with one width byte per block. A 12-bit camera frame packs to at most
+ * 12-13 bits per pixel, and flat dark regions around the MCP collapse to a
+ * single byte per block. Frames that do not pack below their raw size are kept
+ * as raw little-endian shorts instead. Optionally everything outside the MCP
+ * disk is stored as zero, which is lossless only inside the disk.
+ *
+ * Frames are decoded on access; the last few decoded frames are kept in a small
+ * LRU cache so that scrolling back and forth does not decode again.
+ *
+ * @author Juan de la Figuera
+ */
+
+import ij.*;
+import ij.process.*;
+
+import java.util.*;
+
+public class CompressedShortStack extends VirtualStack {
+
+	private static final int BLOCK = 64;
+	private static final int DEFAULT_CACHE_FRAMES = 4;
+	private static final byte PACKED = 0, RAW = 1; // first byte of every stored frame
+
+	private final int width, height;
+	private final int[] maskStart, maskEnd; // per-row span kept inside the MCP disk, null when unmasked
+	private final List<byte[]> frames = new ArrayList<>();
+	private final List<String> labels = new ArrayList<>();
+	private final Map<Integer, short[]> cache;
+	private long compressedBytes;
+
+	public CompressedShortStack(int width, int height) {
+		this(width, height, 0, 0, 0, DEFAULT_CACHE_FRAMES);
+	}
+
+	/**
+	 * @param mcpDiameter diameter in pixels of the MCP disk; pixels outside it are
+	 *                    stored as 0. Use 0 to keep every pixel.
+	 * @param centerX     x of the disk centre, in pixels
+	 * @param centerY     y of the disk centre, in pixels (displayed, flipped image)
+	 * @param cacheFrames number of decoded frames kept in memory
+	 */
+	public CompressedShortStack(int width, int height, double mcpDiameter,
+	                            double centerX, double centerY, int cacheFrames) {
+		super(width, height, null, null);
+		this.width  = width;
+		this.height = height;
+		if (mcpDiameter > 0) {
+			maskStart = new int[height];
+			maskEnd   = new int[height];
+			double r = mcpDiameter / 2.0;
+			for (int y = 0; y < height; y++) {
+				double dy = y - centerY;
+				if (dy * dy > r * r) continue; // empty span
+				double half = Math.sqrt(r * r - dy * dy);
+				maskStart[y] = Math.max(0,     (int) Math.ceil(centerX - half));
+				maskEnd[y]   = Math.min(width, (int) Math.floor(centerX + half) + 1);
+			}
+		} else {
+			maskStart = maskEnd = null;
+		}
+		final int max = Math.max(1, cacheFrames);
+		cache = new LinkedHashMap<Integer, short[]>(max + 1, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, short[]> eldest) {
+				return size() > max;
+			}
+		};
+	}
+
+	// -------------------------------------------------------------------------
+	// ImageStack / VirtualStack
+	// -------------------------------------------------------------------------
+
+	@Override
+	public void addSlice(String sliceLabel, ImageProcessor ip) {
+		addSlice(sliceLabel, ip.getPixels());
+	}
+
+	@Override
+	public synchronized void addSlice(String sliceLabel, Object pixels) {
+		if (!(pixels instanceof short[]) || ((short[]) pixels).length != width * height)
+			throw new IllegalArgumentException("CompressedShortStack: expected " + width + "x" + height + " 16-bit pixels");
+		byte[] data = encode((short[]) pixels);
+		frames.add(data);
+		labels.add(sliceLabel);
+		compressedBytes += data.length;
+	}
+
+	@Override
+	public synchronized void deleteSlice(int n) {
+		checkSlice(n);
+		compressedBytes -= frames.remove(n - 1).length;
+		labels.remove(n - 1);
+		cache.clear(); // slice numbers after n have shifted
+	}
+
+	@Override
+	public ImageProcessor getProcessor(int n) {
+		return new ShortProcessor(width, height, getDecoded(n).clone(), null);
+	}
+
+	@Override
+	public Object getPixels(int n) {
+		return getDecoded(n).clone();
+	}
+
+	@Override
+	public synchronized void setPixels(Object pixels, int n) {
+		checkSlice(n);
+		short[] px = (short[]) pixels;
+		byte[] data = encode(px);
+		compressedBytes += data.length - frames.get(n - 1).length;
+		frames.set(n - 1, data);
+		cache.remove(n);
+	}
+
+	@Override
+	public synchronized int getSize() {
+		return frames.size();
+	}
+
+	@Override
+	public synchronized String getSliceLabel(int n) {
+		checkSlice(n);
+		return labels.get(n - 1);
+	}
+
+	@Override
+	public synchronized void setSliceLabel(String label, int n) {
+		checkSlice(n);
+		labels.set(n - 1, label);
+	}
+
+	@Override
+	public int getBitDepth() {
+		return 16;
+	}
+
+	// -------------------------------------------------------------------------
+	// Statistics
+	// -------------------------------------------------------------------------
+
+	/** Total size of the compressed frames in bytes. */
+	public synchronized long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	/** Size the frames would take as plain short[] arrays. */
+	public synchronized long getRawBytes() {
+		return 2L * width * height * frames.size();
+	}
+
+	/** Decodes slice n without touching the cache. */
+	short[] decode(int n) {
+		byte[] data;
+		synchronized (this) {
+			checkSlice(n);
+			data = frames.get(n - 1);
+		}
+		short[] out = new short[width * height];
+		decode(data, out);
+		return out;
+	}
+
+	// -------------------------------------------------------------------------
+
+	private short[] getDecoded(int n) {
+		synchronized (this) {
+			short[] px = cache.get(n);
+			if (px != null) return px;
+		}
+		short[] px = decode(n);
+		synchronized (this) {
+			cache.put(n, px);
+		}
+		return px;
+	}
+
+	private void checkSlice(int n) {
+		if (n < 1 || n > frames.size())
+			throw new IllegalArgumentException("Slice out of range: " + n);
+	}
+
+	private byte[] encode(short[] px) {
+		int n = width * height;
+		// worst case: flag byte, 17 bits per residual plus one width byte per block
+		byte[] out = new byte[(n * 17 + 7) / 8 + (n + BLOCK - 1) / BLOCK + 8];
+		int[] zz = new int[BLOCK];
+		out[0] = PACKED;
+		int pos = 1;
+		long acc = 0;
+		int accBits = 0;
+
+		int i = 0, x = 0, y = 0, prev = 0, rowFirst = 0;
+		while (i < n) {
+			int count = Math.min(BLOCK, n - i);
+			int or = 0;
+			for (int k = 0; k < count; k++, i++) {
+				int v = px[i] & 0xFFFF;
+				if (maskStart != null && (x < maskStart[y] || x >= maskEnd[y])) v = 0;
+				int pred = x == 0 ? rowFirst : prev;
+				if (x == 0) rowFirst = v;
+				prev = v;
+				if (++x == width) {
+					x = 0;
+					y++;
+				}
+				int d = v - pred;
+				zz[k] = (d << 1) ^ (d >> 31);
+				or |= zz[k];
+			}
+			int bits = 32 - Integer.numberOfLeadingZeros(or);
+
+			// flush whole bytes before the width byte so the stream stays byte-aligned per block
+			while (accBits > 0) {
+				out[pos++] = (byte) acc;
+				acc >>>= 8;
+				accBits -= 8;
+			}
+			acc = 0;
+			accBits = 0;
+			out[pos++] = (byte) bits;
+			if (bits == 0) continue;
+			for (int k = 0; k < count; k++) {
+				acc |= (long) zz[k] << accBits;
+				accBits += bits;
+				while (accBits >= 8) {
+					out[pos++] = (byte) acc;
+					acc >>>= 8;
+					accBits -= 8;
+				}
+			}
+		}
+		if (accBits > 0) out[pos++] = (byte) acc;
+		if (pos - 1 < 2 * n)
+			return Arrays.copyOf(out, pos);
+
+		// incompressible frame: store it raw rather than larger than a short[]
+		byte[] raw = new byte[1 + 2 * n];
+		raw[0] = RAW;
+		for (int ry = 0, j = 0; ry < height; ry++)
+			for (int rx = 0; rx < width; rx++, j++) {
+				int v = px[j];
+				if (maskStart != null && (rx < maskStart[ry] || rx >= maskEnd[ry])) v = 0;
+				raw[1 + 2 * j] = (byte) v;
+				raw[2 + 2 * j] = (byte) (v >> 8);
+			}
+		return raw;
+	}
+
+	private void decode(byte[] data, short[] out) {
+		int n = out.length;
+		if (data[0] == RAW) {
+			for (int i = 0; i < n; i++)
+				out[i] = (short) ((data[1 + 2 * i] & 0xFF) | (data[2 + 2 * i] << 8));
+			return;
+		}
+		int pos = 1;
+		int i = 0, x = 0, prev = 0, rowFirst = 0;
+		while (i < n) {
+			int count = Math.min(BLOCK, n - i);
+			int bits = data[pos++];
+			int mask = (1 << bits) - 1;
+			long acc = 0;
+			int accBits = 0;
+			for (int k = 0; k < count; k++, i++) {
+				int z = 0;
+				if (bits > 0) {
+					while (accBits < bits) {
+						acc |= (long) (data[pos++] & 0xFF) << accBits;
+						accBits += 8;
+					}
+					z = (int) acc & mask;
+					acc >>>= bits;
+					accBits -= bits;
+				}
+				int d = (z >>> 1) ^ -(z & 1);
+				int v = (x == 0 ? rowFirst : prev) + d;
+				if (x == 0) rowFirst = v;
+				prev = v;
+				out[i] = (short) v;
+				if (++x == width) x = 0;
+			}
+		}
+	}
+}
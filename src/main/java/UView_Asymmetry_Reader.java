@@ -0,0 +1,311 @@
+/**
+ * UView_Asymmetry_Reader — computes XMCD/XMLD asymmetry images from a folder of
+ * alternating-polarization UKSOFT2000/UView .dat files while they are being read.
+ *
+ * Files are grouped into (I+, I-) pairs either by file order or by the value of a
+ * LEEM data tag. Both members of a pair are decoded in parallel, and the next pair
+ * is already being decoded while the current one is accumulated, so only a few
+ * frames are held in memory instead of the two full 16-bit stacks. Each output
+ * slice is the 32-bit asymmetry (I+ - I-)/(I+ + I-); with a running average over
+ * N pairs, slice k uses the sums of pairs k..k+N-1 and only those N pairs are
+ * kept. The (averaged) sum image I+ + I- can be produced as well.
+ *
+ * Appears in Fiji as Plugins > UView Asymmetry Reader.
+ *
+ * @author Juan de la Figuera
+ */
+
+import ij.*;
+import ij.plugin.PlugIn;
+import ij.process.*;
+import ij.gui.*;
+import ij.io.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class UView_Asymmetry_Reader implements PlugIn {
+
+	private static final String TITLE = "UView Asymmetry Reader";
+
+	@Override
+	public void run(String arg) {
+		DirectoryChooser dc = new DirectoryChooser("Open folder with UView .dat files");
+		String dir = dc.getDirectory();
+		if (dir == null) return;
+
+		File folder = new File(dir);
+		File[] allFiles = folder.listFiles((d, name) -> name.toLowerCase().endsWith(".dat"));
+		if (allFiles == null || allFiles.length == 0) {
+			IJ.error(TITLE, "No .dat files found in:\n" + dir);
+			return;
+		}
+		Arrays.sort(allFiles);
+
+		// --- options dialog ---
+		GenericDialog gd = new GenericDialog(TITLE);
+		gd.addStringField("File name contains:",  "",                   20);
+		gd.addStringField("Polarization tag:",    "",                   20);
+		gd.addMessage("Leave the tag empty to pair consecutive files (I+, I-).\n"
+				+ "Otherwise the first value of the tag found is taken as I+.");
+		gd.addNumericField("Starting pair:",        1,                   0);
+		gd.addNumericField("Number of pairs:",      allFiles.length / 2, 0);
+		gd.addNumericField("Running average over:", 1,                   0, 6, "pairs");
+		gd.addCheckbox("Swap I+ and I-",            false);
+		gd.addCheckbox("Output sum image",          false);
+		gd.showDialog();
+		if (gd.wasCanceled()) return;
+
+		String filter    =        gd.getNextString().trim();
+		String tag       =        gd.getNextString().trim();
+		int    startPair = Math.max(1, (int) gd.getNextNumber());
+		int    numPairs  = Math.max(1, (int) gd.getNextNumber());
+		int    average   = Math.max(1, (int) gd.getNextNumber());
+		boolean swap     = gd.getNextBoolean();
+		boolean withSum  = gd.getNextBoolean();
+
+		// apply filename filter
+		List<File> filtered = new ArrayList<>();
+		for (File f : allFiles)
+			if (filter.isEmpty() || f.getName().contains(filter))
+				filtered.add(f);
+
+		if (filtered.isEmpty()) {
+			IJ.error(TITLE, "No files match the filter \"" + filter + "\".");
+			return;
+		}
+
+		List<File[]> pairs = tag.isEmpty() ? pairByOrder(filtered) : pairByTag(filtered, tag);
+		if (pairs == null) return;
+		if (swap)
+			for (File[] p : pairs) {
+				File t = p[0]; p[0] = p[1]; p[1] = t;
+			}
+
+		// apply range: starting pair (1-based), count
+		int from = startPair - 1;
+		int to   = Math.min(from + numPairs, pairs.size());
+		if (from >= to) {
+			IJ.error(TITLE, "No pairs in the specified range.");
+			return;
+		}
+		List<File[]> selected = pairs.subList(from, to);
+
+		// --- decode pairs and keep a running sum over the last N of them ---
+		ImageStack asymStack = null, sumStack = null;
+		int width = 0, height = 0;
+		RunningSum window = null;
+		int skipped = 0;
+
+		IJ.showStatus("Reading " + selected.size() + " UView pairs...");
+
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Future<UView_Folder_Reader.FrameData>[] next = submitPair(pool, selected.get(0));
+			for (int n = 0; n < selected.size(); n++) {
+				IJ.showProgress(n, selected.size());
+				File[] pair = selected.get(n);
+				Future<UView_Folder_Reader.FrameData>[] current = next;
+				// keep the decoder threads busy with the next pair while this one is summed
+				next = n + 1 < selected.size() ? submitPair(pool, selected.get(n + 1)) : null;
+
+				UView_Folder_Reader.FrameData fp, fm;
+				try {
+					fp = current[0].get();
+					fm = current[1].get();
+				} catch (ExecutionException e) {
+					IJ.log("Skipped (read error): " + pair[0].getName() + " / " + pair[1].getName()
+							+ " — " + e.getCause().getMessage());
+					skipped++;
+					continue;
+				}
+
+				if (asymStack == null) {
+					width     = fp.width;
+					height    = fp.height;
+					asymStack = new ImageStack(width, height);
+					if (withSum) sumStack = new ImageStack(width, height);
+					window    = new RunningSum(width * height, average);
+				}
+				if (fp.width != width || fp.height != height
+						|| fm.width != width || fm.height != height) {
+					IJ.log("Skipped (different size): " + pair[0].getName() + " / " + pair[1].getName());
+					skipped++;
+					continue;
+				}
+
+				window.add(fp.pixels, fm.pixels, pair[0].getName() + "\n" + fp.label);
+				if (window.isFull())
+					addSlices(asymStack, sumStack, window, width, height);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			IJ.log(TITLE + ": interrupted.");
+		} finally {
+			pool.shutdownNow();
+		}
+
+		IJ.showProgress(1.0);
+		IJ.showStatus("");
+
+		int added = window != null ? window.added() : 0;
+		if (asymStack == null || asymStack.size() == 0) {
+			IJ.error(TITLE, added > 0 ? "Fewer valid pairs (" + added + ") than the running average ("
+					+ average + ")." : "No valid .dat pairs could be read.");
+			return;
+		}
+
+		new ImagePlus("Asymmetry " + folder.getName(), asymStack).show();
+		if (sumStack != null)
+			new ImagePlus("Sum " + folder.getName(), sumStack).show();
+
+		if (skipped > 0)
+			IJ.log(TITLE + ": skipped " + skipped + " pair(s).");
+	}
+
+	// -------------------------------------------------------------------------
+
+	private static List<File[]> pairByOrder(List<File> files) {
+		if (files.size() % 2 != 0)
+			IJ.log(TITLE + ": odd number of files, ignoring " + files.get(files.size() - 1).getName());
+		List<File[]> pairs = new ArrayList<>();
+		for (int i = 0; i + 1 < files.size(); i += 2)
+			pairs.add(new File[] { files.get(i), files.get(i + 1) });
+		return pairs;
+	}
+
+	/**
+	 * Pairs files by the value of a LEEM data tag, reading only the headers.
+	 * The first value found is I+, the other one I-. Each file is paired with its
+	 * neighbour in sorted order when that one has the opposite value; files without
+	 * such a neighbour (e.g. next to a missing or unreadable acquisition) are dropped.
+	 */
+	static List<File[]> pairByTag(List<File> files, String tag) {
+		String[] values = new String[files.size()];
+		String plusValue = null, minusValue = null;
+
+		IJ.showStatus("Reading " + files.size() + " UView headers...");
+		for (int i = 0; i < values.length; i++) {
+			File f = files.get(i);
+			String value;
+			try {
+				value = UView_Folder_Reader.readDat(f, false).meta.get(tag);
+			} catch (Exception e) { // a malformed LEEM block throws unchecked exceptions
+				IJ.log("Skipped (read error): " + f.getName() + " — " + e.getMessage());
+				continue;
+			}
+			if (value == null) {
+				IJ.log("Skipped (no tag \"" + tag + "\"): " + f.getName());
+				continue;
+			}
+			if (plusValue == null || plusValue.equals(value)) {
+				plusValue = value;
+			} else if (minusValue == null || minusValue.equals(value)) {
+				minusValue = value;
+			} else {
+				IJ.error(TITLE, "Tag \"" + tag + "\" has more than two values:\n"
+						+ plusValue + ", " + minusValue + ", " + value);
+				return null;
+			}
+			values[i] = value;
+		}
+		IJ.showStatus("");
+
+		// unreadable files keep a null value, so they also break the adjacency
+		List<File[]> pairs = new ArrayList<>();
+		int i = 0;
+		while (i < values.length) {
+			if (values[i] == null) {
+				i++;
+			} else if (i + 1 < values.length && values[i + 1] != null && !values[i + 1].equals(values[i])) {
+				boolean plusFirst = values[i].equals(plusValue);
+				pairs.add(new File[] { files.get(plusFirst ? i : i + 1), files.get(plusFirst ? i + 1 : i) });
+				i += 2;
+			} else {
+				IJ.log("Skipped (no adjacent " + tag + " partner): " + files.get(i).getName());
+				i++;
+			}
+		}
+		return pairs;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Future<UView_Folder_Reader.FrameData>[] submitPair(ExecutorService pool, File[] pair) {
+		return new Future[] {
+			pool.submit(() -> UView_Folder_Reader.readDat(pair[0])),
+			pool.submit(() -> UView_Folder_Reader.readDat(pair[1]))
+		};
+	}
+
+	/** Adds one slice computed from the window sums; label is that of the oldest pair in the window. */
+	static void addSlices(ImageStack asymStack, ImageStack sumStack, RunningSum window,
+	                      int width, int height) {
+		int[] plus = window.plus, minus = window.minus;
+		int count = window.length();
+		String label = window.oldestLabel();
+		float[] asym = new float[plus.length];
+		float[] sum  = sumStack != null ? new float[plus.length] : null;
+		for (int i = 0; i < plus.length; i++) {
+			int s = plus[i] + minus[i];
+			asym[i] = s != 0 ? (float) (plus[i] - minus[i]) / s : 0f;
+			if (sum != null) sum[i] = (float) s / count;
+		}
+		if (count > 1) label = count + " pairs from " + label;
+		asymStack.addSlice(label, new FloatProcessor(width, height, asym, null));
+		if (sumStack != null)
+			sumStack.addSlice(label, new FloatProcessor(width, height, sum, null));
+	}
+
+	/**
+	 * Per-pixel sums of I+ and I- over the last N pairs. The pairs are kept in a
+	 * ring buffer; adding a pair replaces the oldest one and subtracts it again.
+	 */
+	static class RunningSum {
+		final int[] plus, minus;
+		private final short[][][] window; // {I+, I-} pixels per slot
+		private final String[] labels;
+		private int added;
+
+		RunningSum(int pixels, int length) {
+			plus   = new int[pixels];
+			minus  = new int[pixels];
+			window = new short[length][][];
+			labels = new String[length];
+		}
+
+		void add(short[] p, short[] m, String label) {
+			int slot = added % window.length;
+			short[][] old = window[slot];
+			for (int i = 0; i < plus.length; i++) {
+				plus[i]  += p[i] & 0xFFFF;
+				minus[i] += m[i] & 0xFFFF;
+				if (old != null) {
+					plus[i]  -= old[0][i] & 0xFFFF;
+					minus[i] -= old[1][i] & 0xFFFF;
+				}
+			}
+			window[slot] = new short[][] { p, m };
+			labels[slot] = label;
+			added++;
+		}
+
+		/** True once N pairs have been added, i.e. the sums cover a full window. */
+		boolean isFull() {
+			return added >= window.length;
+		}
+
+		int length() {
+			return window.length;
+		}
+
+		int added() {
+			return added;
+		}
+
+		/** Label of the oldest pair in a full window; the next add replaces it. */
+		String oldestLabel() {
+			return labels[added % window.length];
+		}
+	}
+}
@@ -3,7 +3,8 @@
  *
  * Bypasses SCIFIO entirely for maximum speed. Each file is read with a single I/O call;
  * the vertical flip is done in memory with System.arraycopy. LEEM metadata from each
- * file is stored as the slice label.
+ * file is stored as the slice label. Optionally the frames are kept losslessly
+ * compressed in memory (see CompressedShortStack) so that longer series fit in the heap.
  *
  * Appears in Fiji as Plugins > UView Folder Reader.
  *
@@ -19,6 +20,7 @@ import ij.io.*;
 import java.io.*;
 import java.nio.*;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.text.*;
 import java.util.*;
 
@@ -47,6 +49,8 @@ public class UView_Folder_Reader implements PlugIn {
 		gd.addNumericField("Starting image:",       1,              0);
 		gd.addNumericField("Number of images:",     allFiles.length, 0);
 		gd.addNumericField("Increment:",            1,              0);
+		gd.addCheckbox("Compress in memory",        false);
+		gd.addCheckbox("Mask outside MCP disk (lossy outside)", false);
 		gd.showDialog();
 		if (gd.wasCanceled()) return;
 
@@ -54,6 +58,8 @@ public class UView_Folder_Reader implements PlugIn {
 		int    startImg  = Math.max(1, (int) gd.getNextNumber());
 		int    numImages = Math.max(1, (int) gd.getNextNumber());
 		int    increment = Math.max(1, (int) gd.getNextNumber());
+		boolean compress = gd.getNextBoolean();
+		boolean mcpMask  = gd.getNextBoolean();
 
 		// apply filename filter
 		List<File> filtered = new ArrayList<>();
@@ -78,6 +84,28 @@ public class UView_Folder_Reader implements PlugIn {
 			return;
 		}
 
+		// --- MCP disk, defaults from the first file that will be loaded ---
+		double mcpDiameter = 0, mcpX = 0, mcpY = 0;
+		if (compress && mcpMask) {
+			try {
+				FrameData first = readDat(selected.get(0), false);
+				mcpDiameter = first.mcpDiameter > 0 ? first.mcpDiameter : Math.min(first.width, first.height);
+				mcpX = first.width  / 2.0;
+				mcpY = first.height / 2.0;
+			} catch (Exception e) {
+				// leave the fields at 0; masking is then skipped
+			}
+			GenericDialog md = new GenericDialog("UView Folder Reader");
+			md.addNumericField("MCP diameter:", mcpDiameter, 0, 6, "pixels");
+			md.addNumericField("MCP centre x:", mcpX,        1, 6, "pixels");
+			md.addNumericField("MCP centre y:", mcpY,        1, 6, "pixels");
+			md.showDialog();
+			if (md.wasCanceled()) return;
+			mcpDiameter = md.getNextNumber();
+			mcpX        = md.getNextNumber();
+			mcpY        = md.getNextNumber();
+		}
+
 		// --- read selected files ---
 		ImageStack stack = null;
 		int width = 0, height = 0;
@@ -93,7 +121,15 @@ public class UView_Folder_Reader implements PlugIn {
 				if (stack == null) {
 					width  = frame.width;
 					height = frame.height;
-					stack  = new ImageStack(width, height);
+					if (!compress)
+						stack = new ImageStack(width, height);
+					else if (mcpMask && mcpDiameter > 0)
+						stack = new CompressedShortStack(width, height, mcpDiameter, mcpX, mcpY, 4);
+					else {
+						if (mcpMask)
+							IJ.log("UView Folder Reader: no MCP diameter given, storing full frames.");
+						stack = new CompressedShortStack(width, height);
+					}
 				} else if (frame.width != width || frame.height != height) {
 					IJ.log("Skipped (different size): " + f.getName());
 					skipped++;
@@ -115,6 +151,9 @@ public class UView_Folder_Reader implements PlugIn {
 			return;
 		}
 
+		if (stack instanceof CompressedShortStack)
+			logCompression((CompressedShortStack) stack);
+
 		ImagePlus imp = new ImagePlus(folder.getName(), stack);
 		imp.show();
 
@@ -124,13 +163,29 @@ public class UView_Folder_Reader implements PlugIn {
 
 	// -------------------------------------------------------------------------
 
-	private static class FrameData {
+	private static void logCompression(CompressedShortStack stack) {
+		IJ.log(String.format("UView Folder Reader: %d frames compressed %.1f MB -> %.1f MB (%.2fx)",
+				stack.getSize(), stack.getRawBytes() / 1048576.0, stack.getCompressedBytes() / 1048576.0,
+				(double) stack.getRawBytes() / stack.getCompressedBytes()));
+	}
+
+	static class FrameData {
 		int     width, height;
 		short[] pixels;
 		String  label;
+		Map<String, String> meta;
+		Map<String, Float>  values; // numeric LEEM entries, unrounded, same keys as meta
+		long    time;        // acquisition time, ms since the epoch
+		int     mcpDiameter; // 0 when not in the header (version < 8)
+		long    imageOffset;
+	}
+
+	static FrameData readDat(File file) throws IOException {
+		return readDat(file, true);
 	}
 
-	private FrameData readDat(File file) throws IOException {
+	/** Reads header and LEEM data; the pixel block is skipped when readPixels is false. */
+	static FrameData readDat(File file, boolean readPixels) throws IOException {
 		try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
 
 			// --- verify magic ---
@@ -144,6 +199,11 @@ public class UView_Folder_Reader implements PlugIn {
 			int UKFH_size    = readUShort(f);
 			int UKFH_version = readUShort(f);
 			// bitsperpixel at 24 — not needed
+			int mcpDiameter = 0;
+			if (UKFH_version > 7) {
+				f.seek(28); // after camerabitsperpixel at 26
+				mcpDiameter = readUShort(f);
+			}
 
 			f.seek(40);
 			int width  = readUShort(f);
@@ -175,30 +235,34 @@ public class UView_Folder_Reader implements PlugIn {
 
 			// --- read image data in one shot ---
 			long imageOffset = f.length() - 2L * width * height;
-			f.seek(imageOffset);
-			byte[] raw = new byte[width * height * 2];
-			f.readFully(raw);
-
-			// vertical flip: swap rows using System.arraycopy, then bulk short conversion
-			int rowBytes = width * 2;
-			byte[] flipped = new byte[raw.length];
-			for (int row = 0; row < height; row++)
-				System.arraycopy(raw, (height - 1 - row) * rowBytes,
-				                 flipped, row * rowBytes, rowBytes);
-
-			short[] pixels = new short[width * height];
-			ByteBuffer.wrap(flipped).order(ByteOrder.LITTLE_ENDIAN)
-			          .asShortBuffer().get(pixels);
+			short[] pixels = null;
+			if (readPixels) {
+				f.seek(imageOffset);
+				byte[] raw = new byte[width * height * 2];
+				f.readFully(raw);
+
+				// vertical flip: swap rows using System.arraycopy, then bulk short conversion
+				int rowBytes = width * 2;
+				byte[] flipped = new byte[raw.length];
+				for (int row = 0; row < height; row++)
+					System.arraycopy(raw, (height - 1 - row) * rowBytes,
+					                 flipped, row * rowBytes, rowBytes);
+
+				pixels = new short[width * height];
+				ByteBuffer.wrap(flipped).order(ByteOrder.LITTLE_ENDIAN)
+				          .asShortBuffer().get(pixels);
+			}
 
 			// --- parse LEEM data block for slice label ---
-			Map<String, String> meta = new LinkedHashMap<>();
+			Map<String, String> meta   = new LinkedHashMap<>();
+			Map<String, Float>  values = new LinkedHashMap<>();
 			meta.put("Date", formatTime(UKIH_time));
 			if (leemdatasize > 2) {
 				long leemOffset = imgHdrStart + UKIH_size + markupSize;
 				f.seek(leemOffset);
 				byte[] leemBlock = new byte[leemdatasize];
 				f.readFully(leemBlock);
-				parseLEEM(leemBlock, leemdatasize > 1, meta);
+				parseLEEM(leemBlock, leemdatasize > 1, meta, values);
 			}
 
 			StringBuilder sb = new StringBuilder();
@@ -210,12 +274,35 @@ public class UView_Folder_Reader implements PlugIn {
 			fd.height = height;
 			fd.pixels = pixels;
 			fd.label  = sb.toString();
+			fd.meta   = meta;
+			fd.values = values;
+			fd.time   = (UKIH_time - 116444736000000000L) / 10000L;
+			fd.mcpDiameter = mcpDiameter;
+			fd.imageOffset = imageOffset;
 			return fd;
 		}
 	}
 
+	/**
+	 * Reads a w x h sub-region of the image (in flipped, displayed coordinates) into out.
+	 * Uses positional reads only, so several threads may share one channel.
+	 */
+	static void readRegion(FileChannel ch, FrameData fd, int x, int y, int w, int h,
+	                       short[] out) throws IOException {
+		ByteBuffer row = ByteBuffer.allocate(2 * w).order(ByteOrder.LITTLE_ENDIAN);
+		for (int r = 0; r < h; r++) {
+			long pos = fd.imageOffset + 2L * ((long) (fd.height - 1 - (y + r)) * fd.width + x);
+			row.clear();
+			while (row.hasRemaining())
+				if (ch.read(row, pos + row.position()) < 0)
+					throw new EOFException("Unexpected end of file");
+			row.flip();
+			row.asShortBuffer().get(out, r * w, w);
+		}
+	}
+
 	private static void parseLEEM(byte[] block, boolean readAveragingBytes,
-	                               Map<String, String> meta) {
+	                               Map<String, String> meta, Map<String, Float> values) {
 		int i = 0;
 		while (i < block.length) {
 			int rawTag = block[i++] & 0xFF;
@@ -229,8 +316,8 @@ public class UView_Folder_Reader implements PlugIn {
 			case 100: {
 				float x = getFloat(block, i); i += 4;
 				float y = getFloat(block, i); i += 4;
-				meta.put("MicrometerX", fmt(x));
-				meta.put("MicrometerY", fmt(y));
+				put(meta, values, "MicrometerX", x, "");
+				put(meta, values, "MicrometerY", y, "");
 				break;
 			}
 			case 101: {
@@ -240,11 +327,11 @@ public class UView_Folder_Reader implements PlugIn {
 				break;
 			}
 			case 102:
-				meta.put("Varian1", fmt(getFloat(block, i))); i += 4; break;
+				put(meta, values, "Varian1", getFloat(block, i), ""); i += 4; break;
 			case 103:
-				meta.put("Varian2", fmt(getFloat(block, i))); i += 4; break;
+				put(meta, values, "Varian2", getFloat(block, i), ""); i += 4; break;
 			case 104: {
-				meta.put("CameraExposure", fmt(getFloat(block, i)) + " s"); i += 4;
+				put(meta, values, "CameraExposure", getFloat(block, i), " s"); i += 4;
 				if (readAveragingBytes) i += 2; // B1, B2
 				break;
 			}
@@ -260,23 +347,23 @@ public class UView_Folder_Reader implements PlugIn {
 				String name = new String(block, i, end1 - i); i = end1 + 1;
 				int end2 = indexOf0(block, i);
 				String units = new String(block, i, end2 - i); i = end2 + 1;
-				meta.put(name + " (" + units + ")", fmt(getFloat(block, i))); i += 4;
+				put(meta, values, name + " (" + units + ")", getFloat(block, i), ""); i += 4;
 				break;
 			}
 			case 110: {
 				int end = indexOf0(block, i);
 				String unit = new String(block, i, end - i); i = end + 1;
-				meta.put("FOVCalibration", fmt(getFloat(block, i)) + " " + unit); i += 4;
+				put(meta, values, "FOVCalibration", getFloat(block, i), " " + unit); i += 4;
 				break;
 			}
 			case 111:
-				meta.put("Phi",   fmt(getFloat(block, i))); i += 4;
-				meta.put("Theta", fmt(getFloat(block, i))); i += 4;
+				put(meta, values, "Phi",   getFloat(block, i), ""); i += 4;
+				put(meta, values, "Theta", getFloat(block, i), ""); i += 4;
 				break;
 			case 115:
-				meta.put("MCPScreenVoltage",  fmt(getFloat(block, i)) + " kV"); i += 4; break;
+				put(meta, values, "MCPScreenVoltage", getFloat(block, i), " kV"); i += 4; break;
 			case 116:
-				meta.put("MCPChannelPlate",   fmt(getFloat(block, i)) + " kV"); i += 4; break;
+				put(meta, values, "MCPChannelPlate",  getFloat(block, i), " kV"); i += 4; break;
 			default:
 				if (tag < 100) {
 					int end = indexOf0(block, i);
@@ -288,7 +375,7 @@ public class UView_Folder_Reader implements PlugIn {
 						String unit     = (unitCode >= '0' && unitCode <= '9')
 								? UNIT_NAMES[unitCode - '0'] : "";
 						String key = unit.isEmpty() ? modName : modName + " (" + unit + ")";
-						meta.put(key, fmt(val));
+						put(meta, values, key, val, "");
 					}
 				}
 				break;
@@ -310,6 +397,13 @@ public class UView_Folder_Reader implements PlugIn {
 		return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getLong();
 	}
 
+	/** Stores a LEEM reading both as label text and as its unrounded value. */
+	private static void put(Map<String, String> meta, Map<String, Float> values,
+	                        String key, float value, String unitSuffix) {
+		meta.put(key, fmt(value) + unitSuffix);
+		values.put(key, value);
+	}
+
 	private static float getFloat(byte[] buf, int offset) {
 		return ByteBuffer.wrap(buf, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
 	}
@@ -0,0 +1,472 @@
+/**
+ * UView_Spot_Tracker — tracks LEED/µ-LEED diffraction spots through a folder of
+ * UKSOFT2000/UView .dat files (energy or temperature scans).
+ *
+ * Initial spot positions are taken from a multi-point selection on the current
+ * image. Every spot is fitted with a 2D Gaussian on a background (position,
+ * amplitude, widths, background) by Levenberg-Marquardt, each fit starting from
+ * the same spot's fit in the previous frame. The spots are split into one group
+ * per thread and each group walks all frames in order, reading only a small box
+ * around each of its spots. A prefetch thread opens the files and reads their
+ * headers ahead of the groups, so no thread waits for the others between frames.
+ * The fits are joined with the LEEM metadata of each frame into a results table.
+ *
+ * Appears in Fiji as Plugins > UView Spot Tracker.
+ *
+ * @author Juan de la Figuera
+ */
+
+import ij.*;
+import ij.plugin.PlugIn;
+import ij.process.*;
+import ij.gui.*;
+import ij.io.*;
+import ij.measure.ResultsTable;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class UView_Spot_Tracker implements PlugIn {
+
+	private static final String TITLE = "UView Spot Tracker";
+	private static final String[] PARAM_NAMES = {"Background", "Amplitude", "X", "Y", "SigmaX", "SigmaY"};
+
+	@Override
+	public void run(String arg) {
+		ImagePlus imp = WindowManager.getCurrentImage();
+		Roi roi = imp != null ? imp.getRoi() : null;
+		if (!(roi instanceof PointRoi)) {
+			IJ.error(TITLE, "Mark the initial spot positions on an image\nwith the multi-point tool.");
+			return;
+		}
+		FloatPolygon points = roi.getFloatPolygon();
+
+		DirectoryChooser dc = new DirectoryChooser("Open folder with UView .dat files");
+		String dir = dc.getDirectory();
+		if (dir == null) return;
+
+		File folder = new File(dir);
+		File[] allFiles = folder.listFiles((d, name) -> name.toLowerCase().endsWith(".dat"));
+		if (allFiles == null || allFiles.length == 0) {
+			IJ.error(TITLE, "No .dat files found in:\n" + dir);
+			return;
+		}
+		Arrays.sort(allFiles);
+
+		// --- options dialog ---
+		GenericDialog gd = new GenericDialog(TITLE);
+		gd.addStringField("File name contains:",  "",              20);
+		gd.addNumericField("Starting image:",       1,              0);
+		gd.addNumericField("Number of images:",     allFiles.length, 0);
+		gd.addNumericField("Increment:",            1,              0);
+		gd.addNumericField("Fit box radius:",       8,              0, 6, "pixels");
+		gd.addNumericField("Threads:",              Runtime.getRuntime().availableProcessors(), 0);
+		gd.showDialog();
+		if (gd.wasCanceled()) return;
+
+		String filter    =        gd.getNextString().trim();
+		int    startImg  = Math.max(1, (int) gd.getNextNumber());
+		int    numImages = Math.max(1, (int) gd.getNextNumber());
+		int    increment = Math.max(1, (int) gd.getNextNumber());
+		int    radius    = Math.max(2, (int) gd.getNextNumber());
+		int    threads   = Math.max(1, (int) gd.getNextNumber());
+
+		// apply filename filter
+		List<File> filtered = new ArrayList<>();
+		for (File f : allFiles)
+			if (filter.isEmpty() || f.getName().contains(filter))
+				filtered.add(f);
+
+		// apply range: starting image (1-based), count, increment
+		int from = startImg - 1;
+		int to   = Math.min(from + numImages * increment, filtered.size());
+		List<File> selected = new ArrayList<>();
+		for (int i = from; i < to; i += increment)
+			selected.add(filtered.get(i));
+
+		if (selected.isEmpty()) {
+			IJ.error(TITLE, "No files match the filter and range.");
+			return;
+		}
+
+		// --- track ---
+		int nSpots = points.npoints;
+		double[][] start = new double[nSpots][];
+		for (int s = 0; s < nSpots; s++)
+			start[s] = new double[] {points.xpoints[s], points.ypoints[s]};
+
+		IJ.showStatus("Tracking " + nSpots + " spots in " + selected.size() + " UView files...");
+		Tracking tracking;
+		long t0 = System.nanoTime();
+		try {
+			tracking = track(selected, start, radius, threads);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			IJ.log(TITLE + ": interrupted.");
+			return;
+		} catch (ExecutionException e) {
+			IJ.error(TITLE, "Tracking failed: " + e.getCause());
+			return;
+		} finally {
+			IJ.showProgress(1.0);
+			IJ.showStatus("");
+		}
+		double seconds = (System.nanoTime() - t0) / 1e9;
+
+		// --- results, in frame order ---
+		ResultsTable rt = new ResultsTable();
+		int skipped = 0;
+		long fits = 0;
+		for (int n = 0; n < selected.size(); n++) {
+			String name = selected.get(n).getName();
+			if (tracking.errors[n] != null) {
+				IJ.log("Skipped (read error): " + name + " — " + tracking.errors[n].getMessage());
+				skipped++;
+				continue;
+			}
+			for (int s = 0; s < nSpots; s++)
+				addRow(rt, n + 1, name, s + 1, tracking.fits[n][s], tracking.frames[n]);
+			fits += nSpots;
+		}
+
+		rt.show("Spots " + folder.getName());
+		IJ.log(String.format("%s: %d spot fits in %.1f s (%.0f fits/s, %d threads)",
+				TITLE, fits, seconds, fits / seconds, threads));
+		if (skipped > 0)
+			IJ.log(TITLE + ": skipped " + skipped + " file(s).");
+	}
+
+	// -------------------------------------------------------------------------
+
+	/** Files opened by the prefetch thread ahead of the spot groups. */
+	private static final int PREFETCH = 32;
+
+	/** Per frame: header (null if unreadable), read error, and fits[frame][spot] (null if the fit failed). */
+	static class Tracking {
+		UView_Folder_Reader.FrameData[] frames;
+		Exception[] errors;
+		double[][][] fits;
+	}
+
+	/** An open file shared by all spot groups; closed when the last group is done with it. */
+	private static class OpenFrame {
+		FileChannel channel;
+		UView_Folder_Reader.FrameData header;
+		Exception error;
+		final AtomicInteger users;
+		final Semaphore window;
+
+		OpenFrame(int users, Semaphore window) {
+			this.users  = new AtomicInteger(users);
+			this.window = window;
+		}
+
+		void release() {
+			if (users.decrementAndGet() == 0) {
+				closeQuietly(channel);
+				window.release();
+			}
+		}
+	}
+
+	/**
+	 * Tracks spots starting at start[s] = {x, y} through the files, in order.
+	 * Spots are split into min(threads, spots) groups; each group runs on its own
+	 * thread through all frames, so a spot's fit is always warm-started from its
+	 * own fit in the previous successfully read frame.
+	 */
+	static Tracking track(List<File> files, double[][] start, int radius, int threads)
+			throws InterruptedException, ExecutionException {
+		int nFrames = files.size(), nSpots = start.length;
+		int groups  = Math.max(1, Math.min(threads, nSpots));
+
+		Tracking result = new Tracking();
+		result.frames = new UView_Folder_Reader.FrameData[nFrames];
+		result.errors = new Exception[nFrames];
+		result.fits   = new double[nFrames][nSpots][];
+		AtomicReferenceArray<Exception> regionErrors = new AtomicReferenceArray<>(nFrames);
+
+		Semaphore window = new Semaphore(PREFETCH);
+		List<CompletableFuture<OpenFrame>> opened = new ArrayList<>(nFrames);
+		for (int n = 0; n < nFrames; n++)
+			opened.add(new CompletableFuture<>());
+
+		Thread prefetch = new Thread(() -> {
+			int n = 0;
+			try {
+				for (; n < nFrames; n++) {
+					window.acquire();
+					OpenFrame frame = new OpenFrame(groups, window);
+					try {
+						frame.header = UView_Folder_Reader.readDat(files.get(n), false);
+						if (frame.header.imageOffset < 0)
+							throw new EOFException("File too short for a " + frame.header.width
+									+ "x" + frame.header.height + " image");
+						frame.channel = FileChannel.open(files.get(n).toPath(), StandardOpenOption.READ);
+					} catch (Exception e) { // a malformed LEEM block throws unchecked exceptions
+						closeQuietly(frame.channel);
+						frame.channel = null;
+						frame.error   = e;
+					}
+					opened.get(n).complete(frame);
+				}
+			} catch (InterruptedException e) {
+				// tracking was cancelled
+			} finally {
+				// never leave a group waiting for a frame that will not come
+				for (; n < nFrames; n++)
+					opened.get(n).completeExceptionally(new CancellationException("prefetch stopped"));
+			}
+		}, TITLE + " prefetch");
+
+		AtomicLong done = new AtomicLong();
+		long total = (long) nFrames * nSpots;
+		ExecutorService pool = Executors.newFixedThreadPool(groups);
+		CompletionService<Void> cs = new ExecutorCompletionService<>(pool);
+		List<Future<Void>> tasks = new ArrayList<>();
+		prefetch.start();
+		try {
+			for (int g = 0; g < groups; g++) {
+				final int first = g;
+				tasks.add(cs.submit(() -> {
+					// spots first, first + groups, first + 2 groups, ...
+					double[][] params = new double[nSpots][];
+					for (int s = first; s < nSpots; s += groups)
+						params[s] = new double[] {Double.NaN, Double.NaN, start[s][0], start[s][1],
+						                          radius / 3.0, radius / 3.0};
+					for (int n = 0; n < nFrames; n++) {
+						OpenFrame frame = opened.get(n).get();
+						try {
+							if (frame.error != null || regionErrors.get(n) != null) continue;
+							for (int s = first; s < nSpots; s += groups) {
+								double[] p = fitSpot(frame.channel, frame.header, params[s], radius);
+								result.fits[n][s] = p;
+								if (p != null) params[s] = p;
+							}
+						} catch (IOException | RuntimeException e) {
+							regionErrors.compareAndSet(n, null, e);
+						} finally {
+							frame.release();
+						}
+						done.addAndGet((nSpots - first + groups - 1) / groups);
+					}
+					return null;
+				}));
+			}
+
+			// wait for every group; on the first failure cancel the rest
+			for (int g = 0; g < groups; g++) {
+				Future<Void> f;
+				while ((f = cs.poll(250, TimeUnit.MILLISECONDS)) == null)
+					IJ.showProgress((double) done.get() / total);
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					for (Future<Void> t : tasks) t.cancel(true);
+					throw e;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+			prefetch.interrupt();
+			prefetch.join();
+			for (CompletableFuture<OpenFrame> f : opened)
+				if (f.isDone() && !f.isCompletedExceptionally()) closeQuietly(f.getNow(null).channel);
+		}
+
+		for (int n = 0; n < nFrames; n++) {
+			OpenFrame frame = opened.get(n).getNow(null);
+			result.frames[n] = frame.header;
+			result.errors[n] = frame.error != null ? frame.error : regionErrors.get(n);
+		}
+		return result;
+	}
+
+	/**
+	 * Fits one spot in a (2 radius + 1) box centred on the previous position.
+	 * Returns null when the fit fails or the spot leaves the box.
+	 */
+	private static double[] fitSpot(FileChannel ch, UView_Folder_Reader.FrameData frame,
+	                                double[] start, int radius) throws IOException {
+		int size = 2 * radius + 1;
+		int w = Math.min(size, frame.width), h = Math.min(size, frame.height);
+		int x0 = clamp((int) Math.round(start[2]) - radius, 0, frame.width  - w);
+		int y0 = clamp((int) Math.round(start[3]) - radius, 0, frame.height - h);
+		short[] raw = new short[w * h];
+		UView_Folder_Reader.readRegion(ch, frame, x0, y0, w, h, raw);
+
+		double[] data = new double[w * h];
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+		for (int i = 0; i < data.length; i++) {
+			data[i] = raw[i] & 0xFFFF;
+			min = Math.min(min, data[i]);
+			max = Math.max(max, data[i]);
+		}
+
+		// box coordinates; background and amplitude are re-estimated when unknown
+		double[] p = start.clone();
+		p[2] -= x0;
+		p[3] -= y0;
+		if (Double.isNaN(p[0]) || Double.isNaN(p[1])) {
+			p[0] = min;
+			p[1] = max - min;
+		}
+
+		if (!GaussianFit.fit(data, w, h, p)) return null;
+		if (p[2] < 0 || p[2] > w - 1 || p[3] < 0 || p[3] > h - 1
+				|| p[4] > size || p[5] > size) return null;
+		p[2] += x0;
+		p[3] += y0;
+		return p;
+	}
+
+	/** One row per frame and spot; numeric LEEM values keep full float precision. */
+	private static void addRow(ResultsTable rt, int frame, String file, int spot,
+	                           double[] p, UView_Folder_Reader.FrameData header) {
+		rt.incrementCounter();
+		rt.addValue("Frame", frame);
+		rt.addValue("File",  file);
+		rt.addValue("Spot",  spot);
+		for (int k = 0; k < PARAM_NAMES.length; k++)
+			rt.addValue(PARAM_NAMES[k], p != null ? p[k] : Double.NaN);
+		rt.addValue("Time (s)", header.time / 1000.0);
+		for (Map.Entry<String, String> e : header.meta.entrySet()) {
+			Float value = header.values.get(e.getKey());
+			if (value != null)
+				rt.addValue(e.getKey(), value);
+			else
+				rt.addValue(e.getKey(), e.getValue());
+		}
+	}
+
+	private static int clamp(int v, int lo, int hi) {
+		return Math.max(lo, Math.min(hi, v));
+	}
+
+	private static void closeQuietly(Closeable c) {
+		if (c == null) return;
+		try {
+			c.close();
+		} catch (IOException e) {
+			// nothing to do for a read-only file
+		}
+	}
+
+	/**
+	 * Levenberg-Marquardt fit of bg + A exp(-(x-x0)^2/(2 sx^2) - (y-y0)^2/(2 sy^2))
+	 * to a w x h box. Parameters are {bg, A, x0, y0, sx, sy}.
+	 */
+	static class GaussianFit {
+
+		private static final int NP = 6;
+		private static final int MAX_ITERATIONS = 100;
+
+		static boolean fit(double[] data, int w, int h, double[] p) {
+			double lambda = 1e-3;
+			double chi2 = chi2(data, w, h, p);
+			double[][] alpha = new double[NP][NP];
+			double[] beta = new double[NP];
+			double[] grad = new double[NP];
+
+			for (int iter = 0; iter < MAX_ITERATIONS; iter++) {
+				for (double[] row : alpha) Arrays.fill(row, 0);
+				Arrays.fill(beta, 0);
+				for (int y = 0, i = 0; y < h; y++)
+					for (int x = 0; x < w; x++, i++) {
+						double r = data[i] - model(p, x, y, grad);
+						for (int j = 0; j < NP; j++) {
+							beta[j] += r * grad[j];
+							for (int k = 0; k <= j; k++)
+								alpha[j][k] += grad[j] * grad[k];
+						}
+					}
+				for (int j = 0; j < NP; j++)
+					for (int k = 0; k < j; k++)
+						alpha[k][j] = alpha[j][k];
+
+				// raise lambda until a step lowers chi2
+				while (true) {
+					double[][] a = new double[NP][];
+					for (int j = 0; j < NP; j++) {
+						a[j] = alpha[j].clone();
+						a[j][j] *= 1 + lambda;
+					}
+					double[] delta = solve(a, beta.clone());
+					if (delta == null) return false;
+					double[] trial = new double[NP];
+					for (int j = 0; j < NP; j++) trial[j] = p[j] + delta[j];
+					trial[4] = Math.abs(trial[4]);
+					trial[5] = Math.abs(trial[5]);
+					double trialChi2 = chi2(data, w, h, trial);
+					if (trialChi2 < chi2) {
+						System.arraycopy(trial, 0, p, 0, NP);
+						boolean converged = chi2 - trialChi2 < 1e-7 * chi2;
+						chi2 = trialChi2;
+						lambda = Math.max(lambda / 10, 1e-10);
+						if (converged) return true;
+						break;
+					}
+					lambda *= 10;
+					if (lambda > 1e10) return true; // no further improvement possible
+				}
+			}
+			return true;
+		}
+
+		/** Model value at (x, y); fills grad with the partial derivatives when not null. */
+		private static double model(double[] p, int x, int y, double[] grad) {
+			double dx = x - p[2], dy = y - p[3];
+			double sx2 = p[4] * p[4], sy2 = p[5] * p[5];
+			double e = Math.exp(-0.5 * (dx * dx / sx2 + dy * dy / sy2));
+			if (grad != null) {
+				double ae = p[1] * e;
+				grad[0] = 1;
+				grad[1] = e;
+				grad[2] = ae * dx / sx2;
+				grad[3] = ae * dy / sy2;
+				grad[4] = ae * dx * dx / (sx2 * p[4]);
+				grad[5] = ae * dy * dy / (sy2 * p[5]);
+			}
+			return p[0] + p[1] * e;
+		}
+
+		private static double chi2(double[] data, int w, int h, double[] p) {
+			double sum = 0;
+			for (int y = 0, i = 0; y < h; y++)
+				for (int x = 0; x < w; x++, i++) {
+					double r = data[i] - model(p, x, y, null);
+					sum += r * r;
+				}
+			return sum;
+		}
+
+		/** Gaussian elimination with partial pivoting; null if a is singular. */
+		private static double[] solve(double[][] a, double[] b) {
+			int n = b.length;
+			for (int c = 0; c < n; c++) {
+				int piv = c;
+				for (int r = c + 1; r < n; r++)
+					if (Math.abs(a[r][c]) > Math.abs(a[piv][c])) piv = r;
+				if (Math.abs(a[piv][c]) < 1e-300 || Double.isNaN(a[piv][c])) return null;
+				double[] t = a[c]; a[c] = a[piv]; a[piv] = t;
+				double tb = b[c]; b[c] = b[piv]; b[piv] = tb;
+				for (int r = c + 1; r < n; r++) {
+					double f = a[r][c] / a[c][c];
+					for (int k = c; k < n; k++) a[r][k] -= f * a[c][k];
+					b[r] -= f * b[c];
+				}
+			}
+			double[] x = new double[n];
+			for (int r = n - 1; r >= 0; r--) {
+				double s = b[r];
+				for (int k = r + 1; k < n; k++) s -= a[r][k] * x[k];
+				x[r] = s / a[r][r];
+			}
+			return x;
+		}
+	}
+}
@@ -26,7 +26,13 @@ import io.scif.SCIFIO;
 import io.scif.config.SCIFIOConfig;
 import io.scif.util.FormatTools;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -364,6 +370,13 @@ public class UView_reader {
 		}
 
 		public static class Reader extends ByteArrayReader<Metadata> {
+
+			// Positional reads on a FileChannel do not touch any shared file pointer, so
+			// several threads can call openPlane on the same reader at once. Locations
+			// that are not plain files fall back to seek + read under a lock on the handle.
+			private volatile FileChannel channel;
+			private volatile Location channelLocation;
+
 			@Override
 			public ByteArrayPlane openPlane(int imageIndex, long planeIndex,
 					ByteArrayPlane plane, Interval bounds,
@@ -377,9 +390,13 @@ public class UView_reader {
 
 				int width=(int)meta.get(imageIndex).getAxisLength(Axes.X);
 				int height=(int)meta.get(imageIndex).getAxisLength(Axes.Y);
-				getHandle().seek(meta.getOffset());
-				for(int i=0;i<height;i++) {
-					getHandle().readFully(buf,(height-1-i)*width*2,width*2); // Need to flip vertically
+				int x=(int)bounds.min(0);
+				int y=(int)bounds.min(1);
+				int w=(int)bounds.dimension(0);
+				int h=(int)bounds.dimension(1);
+				for(int i=0;i<h;i++) {
+					long pos=meta.getOffset()+2L*((long)(height-1-(y+i))*width+x); // Need to flip vertically
+					readRow(buf,i*w*2,w*2,pos);
 				}
 				if (meta instanceof HasColorTable) {
 					plane.setColorTable(((HasColorTable) meta).getColorTable(imageIndex,
@@ -389,6 +406,68 @@ public class UView_reader {
 				return plane;
 			}
 
+			@Override
+			public void close(final boolean fileOnly) throws IOException {
+				synchronized (this) {
+					if (channel != null) channel.close();
+					channelLocation = null;
+					channel = null;
+				}
+				super.close(fileOnly);
+			}
+
+			private void readRow(byte[] buf, int off, int len, long pos) throws IOException {
+				FileChannel ch = getChannel();
+				if (ch == null) {
+					final DataHandle<Location> handle = getHandle();
+					synchronized (handle) {
+						handle.seek(pos);
+						handle.readFully(buf, off, len);
+					}
+					return;
+				}
+				while (true) {
+					try {
+						readFully(ch, buf, off, len, pos);
+						return;
+					} catch (ClosedByInterruptException e) {
+						throw e;
+					} catch (ClosedChannelException e) {
+						// another thread was interrupted while reading, which closes the channel
+						// for everyone, before or during this read; reopen it and read again
+						ch = getChannel();
+					}
+				}
+			}
+
+			private FileChannel getChannel() throws IOException {
+				final Location location = getHandle().get();
+				// channelLocation is written after channel, so read it first
+				final boolean current = location == channelLocation;
+				FileChannel ch = channel;
+				if (current && (ch == null || ch.isOpen())) return ch;
+				synchronized (this) {
+					if (location != channelLocation || (channel != null && !channel.isOpen())) {
+						if (channel != null) channel.close();
+						channel = (location instanceof FileLocation)
+								? FileChannel.open(((FileLocation) location).getFile().toPath(), StandardOpenOption.READ)
+								: null;
+						channelLocation = location;
+					}
+					return channel;
+				}
+			}
+
+			private static void readFully(FileChannel ch, byte[] buf, int off, int len, long pos)
+					throws IOException
+			{
+				final ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+				while (bb.hasRemaining()) {
+					if (ch.read(bb, pos+bb.position()-off) < 0)
+						throw new EOFException("Unexpected end of file at " + (pos+bb.position()-off));
+				}
+			}
+
 			@Override
 			protected String[] createDomainArray() {
 				String[] domains={FormatTools.EM_DOMAIN};
@@ -0,0 +1,47 @@
+/**
+ * Compression ratio and decode time of CompressedShortStack on real frames,
+ * unmasked and with centred MCP masks of a few diameters. Not a unit test:
+ * run it by hand with the test classpath,
+ *
+ *   java -cp target/classes:target/test-classes:... CompressedShortStackBenchmark [file.dat ...]
+ *
+ * The files default to test.dat.
+ *
+ * @author Juan de la Figuera
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompressedShortStackBenchmark {
+
+	private static final int DECODES = 200;
+	private static final double[] DIAMETERS = {0, 1024, 900, 700}; // 0 = unmasked
+
+	public static void main(String[] args) throws Exception {
+		List<UView_Folder_Reader.FrameData> frames = new ArrayList<>();
+		for (String name : args.length > 0 ? args : new String[] {"test.dat"})
+			frames.add(UView_Folder_Reader.readDat(new File(name)));
+		int width = frames.get(0).width, height = frames.get(0).height;
+
+		for (double d : DIAMETERS) {
+			CompressedShortStack stack = d > 0
+					? new CompressedShortStack(width, height, d, width / 2.0, height / 2.0, 1)
+					: new CompressedShortStack(width, height);
+			for (UView_Folder_Reader.FrameData f : frames)
+				stack.addSlice("", f.pixels);
+
+			for (int n = 0; n < DECODES; n++) // warm up
+				stack.decode(1 + n % stack.getSize());
+			long t0 = System.nanoTime();
+			for (int n = 0; n < DECODES; n++)
+				stack.decode(1 + n % stack.getSize());
+			double ms = (System.nanoTime() - t0) / 1e6 / DECODES;
+
+			System.out.println(String.format("%-14s %.2fx, decode %.2f ms/frame",
+					d > 0 ? "mask d=" + (int) d + ":" : "unmasked:",
+					(double) stack.getRawBytes() / stack.getCompressedBytes(), ms));
+		}
+	}
+}
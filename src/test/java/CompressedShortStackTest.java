@@ -0,0 +1,108 @@
+/**
+ * Round-trip tests for the in-memory frame codec of CompressedShortStack.
+ *
+ * @author Juan de la Figuera
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompressedShortStackTest {
+
+	@Test
+	public void testDatFrameIsLossless() throws Exception {
+		UView_Folder_Reader.FrameData frame = UView_Folder_Reader.readDat(new File("test.dat"));
+		CompressedShortStack stack = new CompressedShortStack(frame.width, frame.height);
+		stack.addSlice("test.dat", frame.pixels);
+
+		assertArrayEquals(frame.pixels, (short[]) stack.getPixels(1));
+		assertTrue("test.dat should compress", stack.getCompressedBytes() < stack.getRawBytes());
+	}
+
+	@Test
+	public void extremeDeltasAndOddSizesAreLossless() {
+		int width = 37, height = 5; // not a multiple of the 64-pixel block
+		short[] px = new short[width * height];
+		for (int i = 0; i < px.length; i++)
+			px[i] = (short) (i % 2 == 0 ? 0 : 0xFFFF); // +-65535 deltas need 17 bits
+		px[width] = (short) 0x8000;
+
+		CompressedShortStack stack = new CompressedShortStack(width, height);
+		stack.addSlice("extreme", px);
+		assertArrayEquals(px, (short[]) stack.getPixels(1));
+	}
+
+	@Test
+	public void incompressibleFrameIsStoredRaw() {
+		int width = 256, height = 128;
+		short[] px = new short[width * height];
+		Random random = new Random(42);
+		for (int i = 0; i < px.length; i++)
+			px[i] = (short) random.nextInt(1 << 16);
+
+		CompressedShortStack stack = new CompressedShortStack(width, height);
+		stack.addSlice("noise", px);
+		assertArrayEquals(px, (short[]) stack.getPixels(1));
+		assertEquals(stack.getRawBytes() + 1, stack.getCompressedBytes());
+	}
+
+	@Test
+	public void flatFrameCollapses() {
+		int width = 512, height = 512;
+		short[] px = new short[width * height];
+		java.util.Arrays.fill(px, (short) 1234);
+
+		CompressedShortStack stack = new CompressedShortStack(width, height);
+		stack.addSlice("flat", px);
+		assertArrayEquals(px, (short[]) stack.getPixels(1));
+		assertTrue(stack.getCompressedBytes() < stack.getRawBytes() / 100);
+	}
+
+	@Test
+	public void maskKeepsOnlyTheOffCentreDisk() {
+		int width = 64, height = 48;
+		double diameter = 20, cx = 40, cy = 15;
+		short[] px = new short[width * height];
+		Random random = new Random(7);
+		for (int i = 0; i < px.length; i++)
+			px[i] = (short) (1000 + random.nextInt(4096));
+
+		CompressedShortStack stack = new CompressedShortStack(width, height, diameter, cx, cy, 2);
+		stack.addSlice("masked", px);
+		short[] out = (short[]) stack.getPixels(1);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++) {
+				int i = y * width + x;
+				boolean inside = (x - cx) * (x - cx) + (y - cy) * (y - cy) <= diameter * diameter / 4;
+				assertEquals("pixel " + x + "," + y, inside ? px[i] : 0, out[i]);
+			}
+	}
+
+	@Test
+	public void setPixelsAndDeleteSliceKeepFramesInOrder() {
+		int width = 16, height = 16;
+		short[][] frames = new short[3][width * height];
+		for (int n = 0; n < frames.length; n++)
+			for (int i = 0; i < width * height; i++)
+				frames[n][i] = (short) (n * 100 + i);
+
+		CompressedShortStack stack = new CompressedShortStack(width, height);
+		for (int n = 0; n < frames.length; n++)
+			stack.addSlice("frame " + n, frames[n]);
+		stack.getPixels(2); // fill the cache before changing the stack
+
+		short[] replaced = frames[0].clone();
+		replaced[5] = 999;
+		stack.setPixels(replaced, 3);
+		stack.deleteSlice(1);
+
+		assertEquals(2, stack.getSize());
+		assertEquals("frame 1", stack.getSliceLabel(1));
+		assertArrayEquals(frames[1], (short[]) stack.getPixels(1));
+		assertArrayEquals(replaced, (short[]) stack.getPixels(2));
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Pairing by polarization tag and the running-average window of the asymmetry
+ * reader, on small synthetic UView files.
+ *
+ * @author Juan de la Figuera
+ */
+
+import static org.junit.Assert.*;
+
+import ij.ImageStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UViewAsymmetryReaderTest {
+
+	private static final String TAG = "Polarization";
+	private static final float PLUS = 1, MINUS = -1;
+
+	private File dir;
+	private final List<File> written = new ArrayList<>();
+
+	@Before
+	public void createDir() throws IOException {
+		dir = Files.createTempDirectory("uview-asym").toFile();
+	}
+
+	@After
+	public void deleteDir() {
+		for (File f : written) f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void pairsAlternatingFilesWithFirstValueAsPlus() throws IOException {
+		List<File> files = files(MINUS, PLUS, MINUS, PLUS);
+		assertPairs(UView_Asymmetry_Reader.pairByTag(files, TAG), files, 0, 1, 2, 3);
+	}
+
+	@Test
+	public void keepsIPlusFirstWhateverTheFileOrder() throws IOException {
+		List<File> files = files(PLUS, MINUS, MINUS, PLUS);
+		assertPairs(UView_Asymmetry_Reader.pairByTag(files, TAG), files, 0, 1, 3, 2);
+	}
+
+	@Test
+	public void dropsFilesWithoutAdjacentPartner() throws IOException {
+		// the third file lost its partner; pairing resumes with the fourth
+		List<File> files = files(PLUS, MINUS, PLUS, PLUS, MINUS, MINUS);
+		assertPairs(UView_Asymmetry_Reader.pairByTag(files, TAG), files, 0, 1, 3, 4);
+	}
+
+	@Test
+	public void unreadableAndUntaggedFilesBreakAdjacency() throws IOException {
+		List<File> files = files(PLUS, MINUS, PLUS, MINUS, PLUS, MINUS);
+		files.set(1, write("corrupt", new byte[] {106, 'a', 'b'})); // unterminated strings
+		files.set(4, write("untagged", UViewTestFiles.leem("Start Voltage1", 10)));
+		assertPairs(UView_Asymmetry_Reader.pairByTag(files, TAG), files, 2, 3);
+	}
+
+	@Test
+	public void rejectsAThirdTagValue() throws IOException {
+		assertNull(UView_Asymmetry_Reader.pairByTag(files(PLUS, MINUS, 0), TAG));
+	}
+
+	@Test
+	public void runningSumCoversTheLastPairs() {
+		UView_Asymmetry_Reader.RunningSum window = new UView_Asymmetry_Reader.RunningSum(2, 3);
+		for (int k = 0; k < 6; k++) {
+			// pair k: I+ = {k, 60000 + k}, I- = {10 k, 1}; 60000 checks the unsigned handling
+			window.add(new short[] {(short) k, (short) (60000 + k)}, new short[] {(short) (10 * k), 1}, "pair " + k);
+			int first = Math.max(0, k - 2), n = k - first + 1;
+			int sumK = 0;
+			for (int j = first; j <= k; j++) sumK += j;
+
+			assertEquals(k >= 2, window.isFull());
+			assertEquals(sumK,              window.plus[0]);
+			assertEquals(60000 * n + sumK,  window.plus[1]);
+			assertEquals(10 * sumK,         window.minus[0]);
+			assertEquals(n,                 window.minus[1]);
+			if (window.isFull())
+				assertEquals("pair " + (k - 2), window.oldestLabel());
+		}
+	}
+
+	@Test
+	public void slicesAreAsymmetryAndMeanSumOfTheWindow() {
+		UView_Asymmetry_Reader.RunningSum window = new UView_Asymmetry_Reader.RunningSum(3, 2);
+		window.add(new short[] {1, 0, 5}, new short[] {1, 0, 2}, "first");
+		window.add(new short[] {2, 0, 0}, new short[] {0, 0, 3}, "second");
+		ImageStack asym = new ImageStack(3, 1), sum = new ImageStack(3, 1);
+
+		UView_Asymmetry_Reader.addSlices(asym, sum, window, 3, 1);
+
+		// I+ = {3, 0, 5}, I- = {1, 0, 5} over two pairs
+		assertArrayEquals(new float[] {0.5f, 0f, 0f}, (float[]) asym.getPixels(1), 1e-6f);
+		assertArrayEquals(new float[] {2f, 0f, 5f}, (float[]) sum.getPixels(1), 1e-6f);
+		assertEquals("2 pairs from first", asym.getSliceLabel(1));
+	}
+
+	// -------------------------------------------------------------------------
+
+	private List<File> files(float... polarization) throws IOException {
+		List<File> files = new ArrayList<>();
+		for (float p : polarization)
+			files.add(write("pol", UViewTestFiles.leem(TAG + "0", p))); // unit code 0: no unit
+		return files;
+	}
+
+	private File write(String name, byte[] leem) throws IOException {
+		File f = new File(dir, String.format("%02d_%s.dat", written.size(), name));
+		UViewTestFiles.writeDat(f, 4, 3, new short[12], 0, leem);
+		written.add(f);
+		return f;
+	}
+
+	/** Expected pairs as (I+, I-) indices into files. */
+	private static void assertPairs(List<File[]> pairs, List<File> files, int... indices) {
+		assertNotNull(pairs);
+		assertEquals(indices.length / 2, pairs.size());
+		for (int k = 0; k < pairs.size(); k++) {
+			assertEquals("I+ of pair " + k, files.get(indices[2 * k]),     pairs.get(k)[0]);
+			assertEquals("I- of pair " + k, files.get(indices[2 * k + 1]), pairs.get(k)[1]);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Throughput of concurrent openPlane calls on one UKFormat.Reader over test.dat,
+ * for 1, 2, 4, ... threads up to N (N itself always included). Not a unit test:
+ * run it by hand with the test classpath,
+ *
+ *   java -cp target/classes:target/test-classes:... UViewReaderBenchmark [N]
+ *
+ * N defaults to the number of processors.
+ *
+ * @author Juan de la Figuera
+ */
+
+import io.scif.SCIFIO;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imagej.axis.Axes;
+import net.imglib2.FinalInterval;
+
+import org.scijava.io.location.FileLocation;
+
+public class UViewReaderBenchmark {
+
+	private static final int PLANES_PER_THREAD = 64;
+	private static final int TILES_PER_THREAD  = 4096;
+	private static final int TILE = 64;
+
+	private final UView_reader.UKFormat.Reader reader;
+	private final int width, height;
+	private final byte[] reference;
+
+	private UViewReaderBenchmark(UView_reader.UKFormat.Reader reader) throws Exception {
+		this.reader = reader;
+		width  = (int) reader.getMetadata().get(0).getAxisLength(Axes.X);
+		height = (int) reader.getMetadata().get(0).getAxisLength(Axes.Y);
+		reference = reader.openPlane(0, 0).getBytes().clone();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+		                                 : Runtime.getRuntime().availableProcessors();
+		SCIFIO scifio = new SCIFIO();
+		UView_reader.UKFormat.Reader reader = (UView_reader.UKFormat.Reader) scifio.initializer()
+				.initializeReader(new FileLocation(new File("test.dat")));
+		try {
+			UViewReaderBenchmark bench = new UViewReaderBenchmark(reader);
+			bench.throughput(1, true); // warm up
+			bench.throughput(1, false);
+			for (int threads = 1; ; threads = Math.min(2 * threads, maxThreads)) {
+				System.out.println(String.format("UKFormat.Reader, %2d threads: %7.1f planes/s, %8.1f %dx%d tiles/s",
+						threads, bench.throughput(threads, true), bench.throughput(threads, false), TILE, TILE));
+				if (threads == maxThreads) break;
+			}
+		} finally {
+			reader.close();
+			scifio.getContext().dispose();
+		}
+	}
+
+	/** Full planes or random tiles on each thread, checked against a single-threaded read; reads per second. */
+	private double throughput(int threads, boolean planes) throws Exception {
+		int reads = planes ? PLANES_PER_THREAD : TILES_PER_THREAD;
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final long seed = t;
+			workers.add(new Thread(() -> {
+				Random random = new Random(seed);
+				try {
+					for (int n = 0; n < reads; n++) {
+						if (planes) {
+							check(reference, reader.openPlane(0, 0).getBytes());
+						} else {
+							int x = random.nextInt(width - TILE + 1), y = random.nextInt(height - TILE + 1);
+							FinalInterval bounds = new FinalInterval(new long[] {x, y},
+									new long[] {x + TILE - 1, y + TILE - 1});
+							check(crop(x, y), reader.openPlane(0, 0, bounds).getBytes());
+						}
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			}));
+		}
+		long t0 = System.nanoTime();
+		for (Thread w : workers) w.start();
+		for (Thread w : workers) w.join();
+		double seconds = (System.nanoTime() - t0) / 1e9;
+		if (failure.get() != null) throw new IllegalStateException("reader failed", failure.get());
+		return threads * reads / seconds;
+	}
+
+	private byte[] crop(int x, int y) {
+		byte[] tile = new byte[2 * TILE * TILE];
+		for (int r = 0; r < TILE; r++)
+			System.arraycopy(reference, 2 * ((y + r) * width + x), tile, 2 * r * TILE, 2 * TILE);
+		return tile;
+	}
+
+	private static void check(byte[] expected, byte[] actual) {
+		if (!Arrays.equals(expected, actual))
+			throw new IllegalStateException("read does not match the single-threaded reference");
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Concurrent openPlane calls on one UKFormat.Reader over test.dat: every plane
+ * and tile read by several threads must match a single-threaded read, also
+ * while other threads reading from it are being interrupted.
+ *
+ * @author Juan de la Figuera
+ */
+
+import static org.junit.Assert.*;
+
+import io.scif.SCIFIO;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imagej.axis.Axes;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.scijava.io.location.FileLocation;
+
+public class UViewReaderConcurrencyTest {
+
+	private static final File TEST_FILE = new File("test.dat");
+	private static final int THREADS = Math.min(16, Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+	private static final int READS_PER_THREAD = 100;
+
+	private static SCIFIO scifio;
+	private static UView_reader.UKFormat.Reader reader;
+	private static int width, height;
+	private static byte[] reference; // full plane read by a single thread
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		scifio = new SCIFIO();
+		reader = (UView_reader.UKFormat.Reader) scifio.initializer()
+				.initializeReader(new FileLocation(TEST_FILE));
+		width  = (int) reader.getMetadata().get(0).getAxisLength(Axes.X);
+		height = (int) reader.getMetadata().get(0).getAxisLength(Axes.Y);
+		reference = reader.openPlane(0, 0).getBytes().clone();
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		reader.close();
+		scifio.getContext().dispose();
+	}
+
+	@Test
+	public void planeMatchesFolderReader() throws Exception {
+		short[] pixels = UView_Folder_Reader.readDat(TEST_FILE).pixels;
+		byte[] expected = new byte[2 * pixels.length];
+		ByteBuffer.wrap(expected).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(pixels);
+		assertArrayEquals(expected, reference);
+	}
+
+	@Test
+	public void tilesMatchPlane() throws Exception {
+		int[][] tiles = {{0, 0, 1, 1}, {width - 1, height - 1, 1, 1}, {10, 20, 100, 7}, {0, 300, width, 3}};
+		for (int[] t : tiles)
+			assertArrayEquals(crop(t[0], t[1], t[2], t[3]), read(t[0], t[1], t[2], t[3]));
+	}
+
+	@Test
+	public void concurrentReadsMatchWhileWorkersAreInterrupted() throws Exception {
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			final long seed = t;
+			workers.add(new Thread(() -> {
+				Random random = new Random(seed);
+				try {
+					for (int n = 0; n < READS_PER_THREAD; n++)
+						readAndCheck(random);
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			}));
+		}
+		for (Thread w : workers) w.start();
+
+		// While the workers run, keep starting a victim that reads until it is interrupted.
+		// Each interrupt closes the shared channel under the other threads' reads.
+		int interrupts = 0;
+		while (workers.stream().anyMatch(Thread::isAlive)) {
+			CountDownLatch reading = new CountDownLatch(1);
+			AtomicReference<Throwable> victimResult = new AtomicReference<>();
+			Thread victim = new Thread(() -> {
+				Random random = new Random(-1);
+				try {
+					while (true) {
+						readAndCheck(random);
+						reading.countDown();
+					}
+				} catch (Throwable e) {
+					victimResult.set(e);
+				}
+			});
+			victim.start();
+			reading.await();
+			victim.interrupt();
+			victim.join();
+			interrupts++;
+			assertTrue("victim should stop with ClosedByInterruptException, got " + victimResult.get(),
+					victimResult.get() instanceof ClosedByInterruptException);
+		}
+		for (Thread w : workers) w.join();
+
+		if (failure.get() != null) throw new AssertionError("worker failed", failure.get());
+		assertTrue(interrupts > 0);
+		assertArrayEquals(reference, reader.openPlane(0, 0).getBytes()); // reader still usable
+	}
+
+	// -------------------------------------------------------------------------
+
+	/** One full plane or one random tile, compared with the single-threaded reference. */
+	private static void readAndCheck(Random random) throws Exception {
+		if (random.nextInt(4) == 0) {
+			assertArrayEquals(reference, reader.openPlane(0, 0).getBytes());
+			return;
+		}
+		int w = 1 + random.nextInt(width), h = 1 + random.nextInt(height / 4);
+		int x = random.nextInt(width - w + 1), y = random.nextInt(height - h + 1);
+		assertArrayEquals("tile " + x + "," + y + " " + w + "x" + h, crop(x, y, w, h), read(x, y, w, h));
+	}
+
+	private static byte[] read(int x, int y, int w, int h) throws Exception {
+		Interval bounds = new FinalInterval(new long[] {x, y}, new long[] {x + w - 1, y + h - 1});
+		return reader.openPlane(0, 0, bounds).getBytes();
+	}
+
+	private static byte[] crop(int x, int y, int w, int h) {
+		byte[] tile = new byte[2 * w * h];
+		for (int r = 0; r < h; r++)
+			System.arraycopy(reference, 2 * ((y + r) * width + x), tile, 2 * r * w, 2 * w);
+		return tile;
+	}
+}
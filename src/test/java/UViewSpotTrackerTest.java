@@ -0,0 +1,194 @@
+/**
+ * Gaussian spot fit on synthetic data, and spot tracking through a folder of
+ * synthetic UView files with moving spots.
+ *
+ * @author Juan de la Figuera
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class UViewSpotTrackerTest {
+
+	private static final int WIDTH = 96, HEIGHT = 80, FRAMES = 40;
+	private static final long T0 = 1_600_000_000_000L; // ms since the epoch
+
+	private static File dir;
+	private static List<File> files = new ArrayList<>();
+
+	@BeforeClass
+	public static void writeFiles() throws IOException {
+		dir = Files.createTempDirectory("uview-spots").toFile();
+		Random random = new Random(1);
+		for (int n = 0; n < FRAMES; n++) {
+			short[] px = new short[WIDTH * HEIGHT];
+			for (int i = 0; i < px.length; i++)
+				px[i] = (short) (100 + random.nextInt(20));
+			for (int s = 0; s < 3; s++) {
+				double[] c = centre(s, n);
+				addSpot(px, c[0], c[1], 2000 + 500 * s, 1.5 + 0.3 * s);
+			}
+			File f = new File(dir, String.format("scan_%03d.dat", n));
+			UViewTestFiles.writeDat(f, WIDTH, HEIGHT, px, T0 + 500L * n,
+			                        UViewTestFiles.leem("Start Voltage1", voltage(n)));
+			files.add(f);
+		}
+	}
+
+	@AfterClass
+	public static void deleteFiles() {
+		for (File f : files) f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void gaussianFitRecoversSyntheticSpot() {
+		int w = 17, h = 17;
+		double[] truth = {120, 1500, 8.3, 7.6, 2.0, 1.5};
+		double[] data = new double[w * h];
+		Random random = new Random(3);
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++) {
+				double dx = (x - truth[2]) / truth[4], dy = (y - truth[3]) / truth[5];
+				data[y * w + x] = truth[0] + truth[1] * Math.exp(-0.5 * (dx * dx + dy * dy))
+						+ 5 * random.nextGaussian();
+			}
+
+		double[] p = {100, 1000, 8, 8, 3, 3};
+		assertTrue(UView_Spot_Tracker.GaussianFit.fit(data, w, h, p));
+		assertEquals(truth[2], p[2], 0.02);
+		assertEquals(truth[3], p[3], 0.02);
+		assertEquals(truth[4], Math.abs(p[4]), 0.05);
+		assertEquals(truth[5], Math.abs(p[5]), 0.05);
+		assertEquals(truth[1], p[1], 30);
+	}
+
+	@Test
+	public void regionMatchesFullFrame() throws Exception {
+		File f = files.get(7);
+		UView_Folder_Reader.FrameData full = UView_Folder_Reader.readDat(f);
+		UView_Folder_Reader.FrameData header = UView_Folder_Reader.readDat(f, false);
+		assertNull(header.pixels);
+		try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			short[] region = new short[13 * 9];
+			UView_Folder_Reader.readRegion(ch, header, 50, 3, 13, 9, region);
+			for (int y = 0; y < 9; y++)
+				for (int x = 0; x < 13; x++)
+					assertEquals(full.pixels[(3 + y) * WIDTH + 50 + x], region[y * 13 + x]);
+		}
+	}
+
+	@Test
+	public void tracksMovingSpotsWithAnyThreadCount() throws Exception {
+		double[][] start = new double[3][];
+		for (int s = 0; s < 3; s++) {
+			double[] c = centre(s, 0);
+			start[s] = new double[] {Math.round(c[0]) + 1, Math.round(c[1]) - 1};
+		}
+
+		for (int threads : new int[] {1, 2, 3, 8}) {
+			UView_Spot_Tracker.Tracking t = UView_Spot_Tracker.track(files, start, 8, threads);
+			for (int n = 0; n < FRAMES; n++) {
+				assertNull(t.errors[n]);
+				assertEquals(voltage(n), t.frames[n].values.get("Start Voltage (V)"), 0f);
+				assertEquals(T0 + 500L * n, t.frames[n].time);
+				for (int s = 0; s < 3; s++) {
+					double[] c = centre(s, n);
+					double[] p = t.fits[n][s];
+					assertNotNull("frame " + n + " spot " + s, p);
+					assertEquals(c[0], p[2], 0.05);
+					assertEquals(c[1], p[3], 0.05);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void unreadableFileIsReportedAndSkipped() throws Exception {
+		List<File> withMissing = new ArrayList<>(files);
+		withMissing.add(5, new File(dir, "missing.dat"));
+		double[][] start = {{20, 21}};
+
+		UView_Spot_Tracker.Tracking t = UView_Spot_Tracker.track(withMissing, start, 8, 2);
+		assertNotNull(t.errors[5]);
+		assertNull(t.frames[5]);
+		assertNull(t.fits[5][0]);
+		double[] c = centre(0, FRAMES - 1);
+		assertEquals(c[0], t.fits[FRAMES][0][2], 0.05); // tracking went on after the gap
+		assertEquals(c[1], t.fits[FRAMES][0][3], 0.05);
+	}
+
+	@Test
+	public void corruptAndTruncatedFilesAreReportedAndSkipped() throws Exception {
+		File corrupt = new File(dir, "corrupt.dat");
+		byte[] badLeem = {106, 'a', 'b'}; // tag 106 with unterminated name and unit strings
+		UViewTestFiles.writeDat(corrupt, WIDTH, HEIGHT, new short[WIDTH * HEIGHT], T0, badLeem);
+		File truncated = new File(dir, "truncated.dat");
+		Files.copy(files.get(10).toPath(), truncated.toPath());
+		try (RandomAccessFile raf = new RandomAccessFile(truncated, "rw")) {
+			raf.setLength(raf.length() / 2);
+		}
+
+		List<File> withBad = new ArrayList<>(files);
+		withBad.add(5, corrupt);
+		withBad.add(20, truncated);
+		double[][] start = {{20, 21}, {60, 30}};
+		try {
+			for (int threads : new int[] {1, 2}) {
+				UView_Spot_Tracker.Tracking t = UView_Spot_Tracker.track(withBad, start, 8, threads);
+				assertTrue(t.errors[5] instanceof RuntimeException);
+				assertNotNull(t.errors[20]);
+				int n = 0;
+				for (int i = 0; i < withBad.size(); i++) {
+					if (i == 5 || i == 20) continue;
+					assertNull(t.errors[i]);
+					for (int s = 0; s < 2; s++) {
+						double[] c = centre(s, n);
+						assertEquals(c[0], t.fits[i][s][2], 0.05);
+						assertEquals(c[1], t.fits[i][s][3], 0.05);
+					}
+					n++;
+				}
+			}
+		} finally {
+			corrupt.delete();
+			truncated.delete();
+		}
+	}
+
+	// -------------------------------------------------------------------------
+
+	/** Spots drift by up to a pixel per frame, further than the fit box would allow without warm starts. */
+	private static double[] centre(int spot, int frame) {
+		double[][] origin = {{20.3, 20.7}, {60.6, 30.2}, {40.1, 60.4}};
+		double[][] step   = {{0.8, 0.3}, {-0.5, 0.6}, {0.6, 0.2}};
+		return new double[] {origin[spot][0] + step[spot][0] * frame,
+		                     origin[spot][1] + step[spot][1] * frame};
+	}
+
+	/** Start voltages that do not survive "%.4g" rounding. */
+	private static float voltage(int frame) {
+		return 10.123456f + 0.0001234f * frame;
+	}
+
+	private static void addSpot(short[] px, double cx, double cy, double amplitude, double sigma) {
+		for (int y = 0; y < HEIGHT; y++)
+			for (int x = 0; x < WIDTH; x++) {
+				double dx = x - cx, dy = y - cy;
+				px[y * WIDTH + x] += (short) Math.round(amplitude * Math.exp(-(dx * dx + dy * dy) / (2 * sigma * sigma)));
+			}
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Writes small synthetic UKSOFT2001 .dat files for the plugin tests.
+ *
+ * @author Juan de la Figuera
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+final class UViewTestFiles {
+
+	private UViewTestFiles() {}
+
+	/**
+	 * Version 5 file: 104-byte file header, 128-byte image header, the given LEEM
+	 * block and the pixels, stored bottom-up like the camera does.
+	 */
+	static void writeDat(File f, int width, int height, short[] px, long ms, byte[] leem)
+			throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(104 + 128 + leem.length + 2 * px.length)
+		                          .order(ByteOrder.LITTLE_ENDIAN);
+		bb.put("UKSOFT2001".getBytes());
+		bb.putShort(20, (short) 104).putShort(22, (short) 5);
+		bb.putShort(40, (short) width).putShort(42, (short) height);
+		bb.putShort(104, (short) 128);
+		bb.putLong(104 + 8, 116444736000000000L + ms * 10000L); // Windows FILETIME
+		bb.putShort(104 + 26, (short) leem.length);
+		bb.position(104 + 128);
+		bb.put(leem);
+		for (int y = height - 1; y >= 0; y--)
+			for (int x = 0; x < width; x++)
+				bb.putShort(px[y * width + x]);
+		try (FileOutputStream out = new FileOutputStream(f)) {
+			out.write(bb.array());
+		}
+	}
+
+	/**
+	 * LEEM block with one generic module entry (tag 0): the name followed by its
+	 * unit code, e.g. "Start Voltage1" for volts, then the value.
+	 */
+	static byte[] leem(String nameAndUnitCode, float value) {
+		byte[] name = (nameAndUnitCode + "\0").getBytes();
+		return ByteBuffer.allocate(name.length + 6).order(ByteOrder.LITTLE_ENDIAN)
+				.put((byte) 0).put(name).putFloat(value).put((byte) 0xFF)
+				.array();
+	}
+}